@@ -29,8 +29,7 @@ import org.apache.james.imap.decode.ImapRequestLineReader;
 import org.apache.james.imap.decode.base.AbstractImapCommandParser;
 
 import javax.inject.Inject;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -42,6 +41,12 @@ public class ApplePushServiceCommandParser extends AbstractImapCommandParser {
      */
     public final String expected_version = "2";
 
+    private static final String[] NO_MAILBOXES = new String[0];
+    /**
+     * Devices usually only ask for a handful of mailboxes, most often just INBOX.
+     */
+    private static final int INITIAL_MAILBOXES_CAPACITY = 4;
+
     @Inject
     public ApplePushServiceCommandParser(StatusResponseFactory statusResponseFactory) {
         super(ApplePushServiceImapPackages.APPLE_PUSH_SERVICE_COMMAND, statusResponseFactory);
@@ -49,17 +54,48 @@ public class ApplePushServiceCommandParser extends AbstractImapCommandParser {
 
     /**
      * "Consumes" an "atom" object off the request and validates it against the provided value, throwing if no match.
+     * The atom is compared character by character as it is read, so nothing is allocated when it matches;
+     * otherwise the rest of it is read the same way {@link ImapRequestLineReader#atom()} would, to report it.
      *
      * @throws DecodingException if it doesn't validate or if the underlying Reader throws
      */
     private static void consumeAtomAndVerify(ImapRequestLineReader request, String expected) throws DecodingException {
-        String actual = request.atom();
+        char next = request.nextWordChar();
+        int matched = 0;
 
-        if (!Objects.equals(actual, expected)) {
-            throw new DecodingException(
-                    HumanReadableText.ILLEGAL_ARGUMENTS, String.format("Expected %s, got %s.", expected, actual)
-            );
+        while (matched < expected.length() && next == expected.charAt(matched)) {
+            request.consume();
+            next = request.nextChar();
+            matched++;
+        }
+
+        if (matched == expected.length() && isAtomEnd(next)) {
+            return;
+        }
+
+        StringBuilder actual = new StringBuilder(expected.length() * 2).append(expected, 0, matched);
+
+        while (!isAtomEnd(next)) {
+            if (!ImapRequestLineReader.AtomCharValidator.INSTANCE.isValid(next)) {
+                throw new DecodingException(HumanReadableText.ILLEGAL_ARGUMENTS, "Invalid character: '" + next + "'");
+            }
+
+            actual.append(next);
+            request.consume();
+            next = request.nextChar();
         }
+
+        throw new DecodingException(
+                HumanReadableText.ILLEGAL_ARGUMENTS, String.format("Expected %s, got %s.", expected, actual)
+        );
+    }
+
+    /**
+     * Whether the character ends an atom, as per {@link ImapRequestLineReader#atom()}:
+     * whitespace, or a closing parenthesis.
+     */
+    private static boolean isAtomEnd(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == ')';
     }
 
     /**
@@ -69,19 +105,33 @@ public class ApplePushServiceCommandParser extends AbstractImapCommandParser {
      * @throws DecodingException if the underlying reader throws
      */
     private static String[] consumeMailBoxes(ImapRequestLineReader request) throws DecodingException {
-        List<String> mailboxes = new ArrayList<>();
+        String[] mailboxes = new String[INITIAL_MAILBOXES_CAPACITY];
+        int count = 0;
 
         request.nextWordChar();
         request.consumeChar('(');
-        request.nextWordChar();
+        char next = request.nextWordChar();
+
+        while (next != ')') {
+            // a tab ends an atom without being skipped, so mailbox() would return an empty name without consuming it
+            if (next == '\t') {
+                throw new DecodingException(HumanReadableText.ILLEGAL_ARGUMENTS, "Invalid character: '\t'");
+            }
+
+            if (count == mailboxes.length) {
+                mailboxes = Arrays.copyOf(mailboxes, count * 2);
+            }
 
-        while (request.nextChar() != ')') {
-            mailboxes.add(request.mailbox());
-            request.nextWordChar();
+            mailboxes[count++] = request.mailbox();
+            next = request.nextWordChar();
         }
         request.consumeChar(')');
 
-        return mailboxes.toArray(new String[0]);
+        if (count == 0) {
+            return NO_MAILBOXES;
+        }
+
+        return count == mailboxes.length ? mailboxes : Arrays.copyOf(mailboxes, count);
     }
 
 
@@ -117,7 +167,8 @@ public class ApplePushServiceCommandParser extends AbstractImapCommandParser {
 
         return new ApplePushServiceImapPackages.ApplePushServiceRequest(
                 tag,
-                version,
+                // same value as validated above, so the parsed copy needn't be kept around
+                expected_version,
                 account_id,
                 device_token,
                 subtopic,
@@ -0,0 +1,56 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.imap;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.james.imap.processor.IdleProcessor;
+import org.apache.james.modules.protocols.ImapPackage;
+import org.apache.james.utils.ClassName;
+
+import javax.inject.Inject;
+
+/**
+ * James' default IMAP packages along with the XAPPLEPUSHSERVICE extension,
+ * with IDLE handled by {@link ApplePushServiceIdleProcessor} so that the listener knows which devices are in IDLE.
+ * <p>
+ * To be used instead of both DefaultImapPackage and {@link ApplePushServiceImapPackages},
+ * as James doesn't allow two packages to provide a processor for the same command.
+ */
+public class ApplePushServiceDefaultImapPackages extends ImapPackage.Impl {
+    @Inject
+    public ApplePushServiceDefaultImapPackages() {
+        super(ImmutableList.<ClassName>builder()
+                        .addAll(DEFAULT.processors().stream()
+                                .filter(className -> !className.getName().equals(IdleProcessor.class.getCanonicalName()))
+                                .iterator())
+                        .add(new ClassName(ApplePushServiceIdleProcessor.class.getCanonicalName()))
+                        .add(new ClassName(ApplePushServiceProcessor.class.getCanonicalName()))
+                        .build(),
+                ImmutableList.<ClassName>builder()
+                        .addAll(DEFAULT.decoders())
+                        .add(new ClassName(ApplePushServiceCommandParser.class.getCanonicalName()))
+                        .build(),
+                ImmutableList.<ClassName>builder()
+                        .addAll(DEFAULT.encoders())
+                        .add(new ClassName(ApplePushServiceResponseEncoder.class.getCanonicalName()))
+                        .build()
+        );
+    }
+}
@@ -0,0 +1,83 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.imap;
+
+import io.rjevski.XAPSDClientExtension.session.LiveSessionRegistry;
+import org.apache.james.imap.api.display.HumanReadableText;
+import org.apache.james.imap.api.message.response.ImapResponseMessage;
+import org.apache.james.imap.api.message.response.StatusResponse;
+import org.apache.james.imap.api.message.response.StatusResponseFactory;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.message.request.IdleRequest;
+import org.apache.james.imap.processor.IdleProcessor;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.metrics.api.MetricFactory;
+import reactor.core.publisher.Mono;
+
+import javax.inject.Inject;
+
+/**
+ * James' IDLE processor, additionally reporting to the {@link LiveSessionRegistry} when sessions enter and leave IDLE,
+ * and when they are sent a heartbeat.
+ * <p>
+ * IDLE ends with the tagged response to the IDLE command, be it after DONE or after an invalid continuation,
+ * which James sends through the responder it was given; we watch for it there, along with heartbeats.
+ * Mailbox updates sent during IDLE are untagged too, but don't count as heartbeats:
+ * they are sent precisely when the listener asks whether the session is live.
+ */
+public class ApplePushServiceIdleProcessor extends IdleProcessor {
+    private final LiveSessionRegistry liveSessionRegistry;
+
+    @Inject
+    public ApplePushServiceIdleProcessor(MailboxManager mailboxManager, StatusResponseFactory factory, MetricFactory metricFactory, LiveSessionRegistry liveSessionRegistry) {
+        super(mailboxManager, factory, metricFactory);
+        this.liveSessionRegistry = liveSessionRegistry;
+    }
+
+    @Override
+    protected Mono<Void> processRequestReactive(IdleRequest request, ImapSession session, Responder responder) {
+        Responder tracking = new Responder() {
+            @Override
+            public void respond(ImapResponseMessage message) {
+                if (message instanceof StatusResponse) {
+                    StatusResponse status = (StatusResponse) message;
+
+                    if (request.getTag().equals(status.getTag())) {
+                        liveSessionRegistry.idleEnded(session);
+                    } else if (HumanReadableText.HEARTBEAT.equals(status.getTextKey())) {
+                        liveSessionRegistry.idleHeartbeat(session);
+                    }
+                }
+
+                responder.respond(message);
+            }
+
+            @Override
+            public void flush() {
+                responder.flush();
+            }
+        };
+
+        liveSessionRegistry.idleStarted(session);
+
+        return super.processRequestReactive(request, session, tracking)
+                .doOnError(e -> liveSessionRegistry.idleEnded(session));
+    }
+}
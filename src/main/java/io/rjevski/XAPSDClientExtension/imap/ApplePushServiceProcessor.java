@@ -20,7 +20,9 @@
 package io.rjevski.XAPSDClientExtension.imap;
 
 import com.google.common.collect.ImmutableList;
+import io.rjevski.XAPSDClientExtension.session.LiveSessionRegistry;
 import io.rjevski.XAPSDClientExtension.xapsd.Client;
+import io.rjevski.XAPSDClientExtension.xapsd.ClientOptions;
 import org.apache.james.imap.api.ImapConfiguration;
 import org.apache.james.imap.api.display.HumanReadableText;
 import org.apache.james.imap.api.message.Capability;
@@ -30,6 +32,7 @@ import org.apache.james.imap.api.process.ImapProcessor;
 import org.apache.james.imap.api.process.ImapSession;
 import org.apache.james.imap.processor.CapabilityImplementingProcessor;
 import org.apache.james.imap.processor.base.AbstractProcessor;
+import org.apache.james.metrics.api.MetricFactory;
 import org.apache.james.util.MDCBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,12 +49,16 @@ public class ApplePushServiceProcessor extends AbstractProcessor<ApplePushServic
     private static final Logger LOGGER = LoggerFactory.getLogger(ApplePushServiceProcessor.class);
 
     private final StatusResponseFactory factory;
+    private final LiveSessionRegistry liveSessionRegistry;
+    private final MetricFactory metricFactory;
     private Client client;
 
     @Inject
-    public ApplePushServiceProcessor(StatusResponseFactory factory) {
+    public ApplePushServiceProcessor(StatusResponseFactory factory, LiveSessionRegistry liveSessionRegistry, MetricFactory metricFactory) {
         super(ApplePushServiceImapPackages.ApplePushServiceRequest.class);
         this.factory = factory;
+        this.liveSessionRegistry = liveSessionRegistry;
+        this.metricFactory = metricFactory;
     }
 
     @Override
@@ -63,18 +70,14 @@ public class ApplePushServiceProcessor extends AbstractProcessor<ApplePushServic
     public void configure(ImapConfiguration imapConfiguration) {
         Properties customProperties = imapConfiguration.getCustomProperties();
 
-        String baseUrl = (String) customProperties.getOrDefault(
-                "xapsd.baseUrl",
-                // default port as per XAPSD config
-                "http://localhost:11619/"
-        );
+        ClientOptions options = ClientOptions.from(customProperties::getProperty);
 
-        this.client = new Client(baseUrl);
+        this.client = new Client("imap", options, metricFactory);
 
         LOGGER.info(
-                "{} initialized with base URL {} - change customProperties \"xapsd.baseUrl\" to override",
+                "{} initialized with {} - change customProperties \"xapsd.*\" to override",
                 this.getClass().getName(),
-                baseUrl
+                options
         );
     }
 
@@ -120,14 +123,22 @@ public class ApplePushServiceProcessor extends AbstractProcessor<ApplePushServic
             mailboxes = new String[]{"INBOX"};
         }
 
+        String userName = resolveUserName(session);
+
         return this.client.register(
                 request.account_id,
                 request.device_token,
                 request.subtopic,
-                resolveUserName(session),
+                userName,
                 resolveMailboxNames(session, mailboxes)
         ).doOnSuccess(
-                (topic) -> ok(request, responder, topic)
+                // runs on the client's response scheduler rather than on whichever thread completed the call
+                (topic) -> {
+                    // lets the listener know this device may already be kept up to date by this very connection,
+                    // only once xapsd knows about it
+                    liveSessionRegistry.bind(userName, request.device_token, session);
+                    ok(request, responder, topic);
+                }
         ).doOnError(
                 e -> fail(request, responder, HumanReadableText.FAILED)
         ).then();
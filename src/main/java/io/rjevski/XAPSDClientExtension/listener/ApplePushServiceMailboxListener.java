@@ -19,20 +19,25 @@
 
 package io.rjevski.XAPSDClientExtension.listener;
 
+import io.rjevski.XAPSDClientExtension.session.LiveSessionRegistry;
 import io.rjevski.XAPSDClientExtension.xapsd.Client;
+import io.rjevski.XAPSDClientExtension.xapsd.ClientOptions;
 import org.apache.commons.configuration2.HierarchicalConfiguration;
 import org.apache.commons.configuration2.tree.ImmutableNode;
 import org.apache.james.events.Event;
 import org.apache.james.events.EventListener;
 import org.apache.james.events.Group;
 import org.apache.james.mailbox.events.MailboxEvents;
+import org.apache.james.mailbox.model.QuotaRoot;
 import org.apache.james.mailbox.model.UpdatedFlags;
+import org.apache.james.metrics.api.MetricFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Mono;
 
 import javax.inject.Inject;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.Set;
 
 /**
@@ -41,25 +46,55 @@ import java.util.Set;
 class ApplePushServiceMailboxListener implements EventListener.ReactiveGroupEventListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(ApplePushServiceMailboxListener.class);
     private static final ApplePushServiceMailboxListenerGroup GROUP = new ApplePushServiceMailboxListenerGroup();
+    private static final String QUOTA_MAILBOX_NAME = "INBOX";
+    /**
+     * How long after entering IDLE or the last heartbeat a session is trusted to still be connected,
+     * see {@link LiveSessionRegistry}. Slightly above James' default heartbeat interval of two minutes.
+     */
+    private static final Duration DEFAULT_LIVE_SESSION_WINDOW = Duration.ofSeconds(150);
     private final Client client;
+    private final EventPolicyTable policies;
+    private final LiveSessionRegistry liveSessionRegistry;
+    private final boolean suppressForLiveSessions;
+    private final Duration liveSessionWindow;
+    private final NotifiedEventStore notifiedEventStore;
+    private final QuotaStateStore quotaStateStore;
+
     @Inject
     ApplePushServiceMailboxListener(
-            HierarchicalConfiguration<ImmutableNode> config
+            HierarchicalConfiguration<ImmutableNode> config,
+            LiveSessionRegistry liveSessionRegistry,
+            NotifiedEventStore notifiedEventStore,
+            QuotaStateStore quotaStateStore,
+            MetricFactory metricFactory
     ) {
-        String baseUrl = config.getString(
-                "xapsd.baseUrl",
-                // default port as per XAPSD config
-                "http://localhost:11619/"
-        );
+        ClientOptions options = ClientOptions.from(config::getString);
 
         this.client = new Client(
-                baseUrl
+                "listener",
+                options,
+                metricFactory
         );
 
+        this.policies = EventPolicyTable.fromConfiguration(config);
+
         LOGGER.info(
-                "{} initialized with base URL {}, change listener config \"xapsd.baseUrl\" to override",
+                "{} forwarding events as per policies: {}",
                 this.getClass().getName(),
-                baseUrl
+                this.policies
+        );
+
+        this.liveSessionRegistry = liveSessionRegistry;
+        // off by default: only correct if all IMAP traffic for a given user goes through this node
+        this.suppressForLiveSessions = config.getBoolean("xapsd.suppressForLiveSessions", false);
+        this.liveSessionWindow = Duration.ofSeconds(config.getLong("xapsd.liveSessionWindowSeconds", DEFAULT_LIVE_SESSION_WINDOW.getSeconds()));
+        this.notifiedEventStore = notifiedEventStore;
+        this.quotaStateStore = quotaStateStore;
+
+        LOGGER.info(
+                "{} initialized with {}, change listener config \"xapsd.*\" to override",
+                this.getClass().getName(),
+                options
         );
     }
 
@@ -75,57 +110,121 @@ class ApplePushServiceMailboxListener implements EventListener.ReactiveGroupEven
                 event.getClass().getName()
         );
 
+        // the event bus redelivers events on failure or timeout, skip the ones xapsd already acknowledged
+        return notifiedEventStore.isNotified(event.getEventId()).flatMap(notified -> {
+            if (notified) {
+                LOGGER.debug(
+                        "Skipping event {}, already notified",
+                        event.getEventId().getId()
+                );
+
+                return Mono.empty();
+            }
+
+            return forward(event);
+        });
+    }
+
+    /**
+     * Maps the event to RFC5423 events and forwards them to xapsd, unless policies or live sessions say otherwise.
+     */
+    private Mono<Void> forward(Event event) {
+        String mailboxName = resolvePolicyMailboxName(event);
+
+        if (mailboxName == null) {
+            return Mono.empty();
+        }
+
+        // checked before building event sets or querying live sessions, as most events get dropped here when policies are narrow
+        Set<Rfc5423Event> forwardedEvents = policies.forwardedEvents(event.getUsername(), mailboxName);
+
+        if (forwardedEvents.isEmpty()) {
+            LOGGER.debug(
+                    "Skipping event {}, no policy forwards events for mailbox {}",
+                    event.getClass().getName(),
+                    mailboxName
+            );
+
+            return Mono.empty();
+        }
+
+        if (event instanceof MailboxEvents.MessageEvent && isCoveredByLiveSessions((MailboxEvents.MessageEvent) event)) {
+            LOGGER.debug(
+                    "Skipping event {}, all devices hold a live session on the mailbox",
+                    event.getClass().getName()
+            );
+
+            return Mono.empty();
+        }
+
         if (event instanceof MailboxEvents.Added) {
             MailboxEvents.Added addedEvent = (MailboxEvents.Added) event;
 
-            Set<String> mailboxEvents = new HashSet<>();
+            Set<Rfc5423Event> mailboxEvents = EnumSet.noneOf(Rfc5423Event.class);
 
             // a single James event can represent multiple operations
             if (addedEvent.isDelivery()) {
-                mailboxEvents.add("MessageNew");
+                mailboxEvents.add(Rfc5423Event.MESSAGE_NEW);
             }
 
             if (addedEvent.isAppended() || addedEvent.isMoved()) {
-                mailboxEvents.add("MessageAppend");
+                mailboxEvents.add(Rfc5423Event.MESSAGE_APPEND);
             }
 
-            if (!mailboxEvents.isEmpty()) {
-                return handle(
-                        // TODO: is the username even set if it's a delivery instead of local append? since there is no IMAP session
-                        resolveUserName(addedEvent),
-                        resolveMailboxName(addedEvent),
-                        mailboxEvents.toArray(new String[0])
-                );
-            }
+            // TODO: is the username even set if it's a delivery instead of local append? since there is no IMAP session
+            return handle(addedEvent, mailboxName, forwardedEvents, mailboxEvents);
         } else if (event instanceof MailboxEvents.Expunged) {
             MailboxEvents.Expunged expungedEvent = (MailboxEvents.Expunged) event;
 
-            return handle(
-                    resolveUserName(expungedEvent),
-                    resolveMailboxName(expungedEvent),
-                    new String[]{"MessageExpunge"}
-            );
+            return handle(expungedEvent, mailboxName, forwardedEvents, EnumSet.of(Rfc5423Event.MESSAGE_EXPUNGE));
         } else if (event instanceof MailboxEvents.FlagsUpdated) {
             MailboxEvents.FlagsUpdated flagsEvent = (MailboxEvents.FlagsUpdated) event;
 
-            Set<String> mailboxEvents = new HashSet<>();
+            Set<Rfc5423Event> mailboxEvents = EnumSet.noneOf(Rfc5423Event.class);
 
             for (UpdatedFlags update : flagsEvent.getUpdatedFlags()) {
                 if (update.flagsChanged()) {
                     // TODO: determine differences by diffing old/new flags and setting flagsSet/Removed accordingly
                     //  for now we always assume both operations happened
-                    mailboxEvents.add("FlagsSet");
-                    mailboxEvents.add("FlagsClear");
+                    mailboxEvents.add(Rfc5423Event.FLAGS_SET);
+                    mailboxEvents.add(Rfc5423Event.FLAGS_CLEAR);
                 }
             }
 
-            if (!mailboxEvents.isEmpty()) {
+            return handle(flagsEvent, mailboxName, forwardedEvents, mailboxEvents);
+        } else if (event instanceof MailboxEvents.MailboxAdded) {
+            MailboxEvents.MailboxAdded mailboxAddedEvent = (MailboxEvents.MailboxAdded) event;
+
+            return handle(mailboxAddedEvent, mailboxName, forwardedEvents, EnumSet.of(Rfc5423Event.MAILBOX_CREATE));
+        } else if (event instanceof MailboxEvents.MailboxDeletion) {
+            MailboxEvents.MailboxDeletion deletionEvent = (MailboxEvents.MailboxDeletion) event;
+
+            return handle(deletionEvent, mailboxName, forwardedEvents, EnumSet.of(Rfc5423Event.MAILBOX_DELETE));
+        } else if (event instanceof MailboxEvents.MailboxRenamed) {
+            MailboxEvents.MailboxRenamed renamedEvent = (MailboxEvents.MailboxRenamed) event;
+
+            return handle(renamedEvent, mailboxName, forwardedEvents, EnumSet.of(Rfc5423Event.MAILBOX_RENAME));
+        } else if (event instanceof MailboxEvents.QuotaUsageUpdatedEvent) {
+            MailboxEvents.QuotaUsageUpdatedEvent quotaEvent = (MailboxEvents.QuotaUsageUpdatedEvent) event;
+
+            QuotaRoot quotaRoot = quotaEvent.getQuotaRoot();
+            boolean overQuota = quotaEvent.getCountQuota().isOverQuota() || quotaEvent.getSizeQuota().isOverQuota();
+
+            // James reports every change in usage, only push when crossing the quota
+            return quotaStateStore.update(quotaRoot, overQuota).flatMap(changed -> {
+                if (!changed) {
+                    return Mono.empty();
+                }
+
                 return handle(
-                        resolveUserName(flagsEvent),
-                        resolveMailboxName(flagsEvent),
-                        mailboxEvents.toArray(new String[0])
+                        quotaEvent,
+                        mailboxName,
+                        forwardedEvents,
+                        EnumSet.of(overQuota ? Rfc5423Event.QUOTA_EXCEED : Rfc5423Event.QUOTA_WITHIN),
+                        // so that the redelivered event reports the crossing again
+                        Mono.defer(() -> quotaStateStore.update(quotaRoot, !overQuota)).then()
                 );
-            }
+            });
         }
         // TODO: handle other events defined in https://datatracker.ietf.org/doc/html/rfc5423
 
@@ -139,7 +238,7 @@ class ApplePushServiceMailboxListener implements EventListener.ReactiveGroupEven
 
     @Override
     public boolean isHandling(Event event) {
-        return event instanceof MailboxEvents.Added || event instanceof MailboxEvents.Expunged || event instanceof MailboxEvents.FlagsUpdated;
+        return policies.isHandling(event);
     }
 
     /**
@@ -151,10 +250,29 @@ class ApplePushServiceMailboxListener implements EventListener.ReactiveGroupEven
      * @return the same value as resolved within the IMAP extension when registering.
      */
 
-    private String resolveUserName(MailboxEvents.MessageEvent event) {
+    private String resolveUserName(Event event) {
         return event.getUsername().asString();
     }
 
+    /**
+     * Resolves the mailbox name policies are matched against and xapsd is notified for.
+     * <p>
+     * Renames are reported under the old name, as that's the one devices registered with.
+     * Quota events aren't tied to a mailbox, they are reported on INBOX,
+     * which is what the IMAP extension registers devices for when they don't list any mailbox.
+     *
+     * @return the mailbox name, or null for events we don't handle.
+     */
+    private String resolvePolicyMailboxName(Event event) {
+        if (event instanceof MailboxEvents.MailboxEvent) {
+            return resolveMailboxName((MailboxEvents.MailboxEvent) event);
+        } else if (event instanceof MailboxEvents.QuotaUsageUpdatedEvent) {
+            return QUOTA_MAILBOX_NAME;
+        }
+
+        return null;
+    }
+
     /**
      * Resolves the mailbox name.
      * <p>
@@ -165,30 +283,68 @@ class ApplePushServiceMailboxListener implements EventListener.ReactiveGroupEven
      *
      * @return the same value as resolved within the IMAP extension when registering.
      */
-    private String resolveMailboxName(MailboxEvents.MessageEvent event) {
+    private String resolveMailboxName(MailboxEvents.MailboxEvent event) {
         return event.getMailboxPath().getName();
     }
 
     /**
-     * Send the request to xapsd.
+     * Whether every device of the user already holds a live IMAP session on the event's mailbox,
+     * in which case they'll learn about the change through it and a push would be wasted.
+     */
+    private boolean isCoveredByLiveSessions(MailboxEvents.MessageEvent event) {
+        return suppressForLiveSessions && liveSessionRegistry.allDevicesLive(resolveUserName(event), event.getMailboxId(), liveSessionWindow);
+    }
+
+    private Mono<Void> handle(
+            Event event,
+            String mailboxName,
+            Set<Rfc5423Event> forwardedEvents,
+            Set<Rfc5423Event> eventTypes
+    ) {
+        return handle(event, mailboxName, forwardedEvents, eventTypes, Mono.empty());
+    }
+
+    /**
+     * Keeps the events forwarded by the matching policy, then sends the request to xapsd if any are left
+     * and records the event as notified once xapsd acknowledged it.
+     *
+     * @param undo run if xapsd failed to acknowledge the request or it was cancelled before it did,
+     *             to undo state recorded for this event before it gets redelivered
      */
     private Mono<Void> handle(
-            String userName,
+            Event event,
             String mailboxName,
-            String[] eventTypes
+            Set<Rfc5423Event> forwardedEvents,
+            Set<Rfc5423Event> eventTypes,
+            Mono<Void> undo
     ) {
+        eventTypes.retainAll(forwardedEvents);
+
+        if (eventTypes.isEmpty()) {
+            return Mono.empty();
+        }
+
+        String userName = resolveUserName(event);
+        String[] eventNames = eventTypes.stream().map(Rfc5423Event::getName).toArray(String[]::new);
+
         LOGGER.info(
                 "Sending events {} for username {}, mailbox {}",
-                String.join(", ", eventTypes),
+                String.join(", ", eventNames),
                 userName,
                 mailboxName
         );
 
         return this.client.notifyOfEvents(
-                userName,
-                mailboxName,
-                eventTypes
-        );
+                        userName,
+                        mailboxName,
+                        eventNames
+                )
+                .onErrorResume(e -> undo.then(Mono.error(e)))
+                .doOnCancel(() -> undo.subscribe(
+                        null,
+                        e -> LOGGER.warn("Failed to undo state of cancelled event {}", event.getEventId().getId(), e)
+                ))
+                .then(notifiedEventStore.markNotified(event.getEventId()));
     }
 
     public static class ApplePushServiceMailboxListenerGroup extends Group {
@@ -0,0 +1,194 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.configuration2.HierarchicalConfiguration;
+import org.apache.commons.configuration2.tree.ImmutableNode;
+import org.apache.james.core.Domain;
+import org.apache.james.core.Username;
+import org.apache.james.events.Event;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which events get forwarded to xapsd, per domain and mailbox.
+ * <p>
+ * Configured within the listener configuration as follows, the first policy matching both the user's domain
+ * and the mailbox name wins, and events not listed in it are dropped.
+ * Both domain and mailbox are optional and default to "*"; mailbox accepts "*" as a wildcard.
+ * <pre>{@code
+ * <policies>
+ *     <policy>
+ *         <domain>example.com</domain>
+ *         <mailbox>INBOX</mailbox>
+ *         <events>MessageNew MessageAppend MessageExpunge</events>
+ *     </policy>
+ * </policies>
+ * }</pre>
+ * If no policies are configured, every message event is forwarded for all mailboxes, as before policies existed.
+ * <p>
+ * The table is compiled once at startup: the James event classes any policy could forward are collected
+ * so that {@link #isHandling(Event)} can reject everything else without allocating,
+ * and mailbox patterns are compiled into regular expressions.
+ */
+class EventPolicyTable {
+    private static final String WILDCARD = "*";
+
+    private static final Set<Rfc5423Event> DEFAULT_EVENTS = Collections.unmodifiableSet(EnumSet.of(
+            Rfc5423Event.MESSAGE_NEW,
+            Rfc5423Event.MESSAGE_APPEND,
+            Rfc5423Event.MESSAGE_EXPUNGE,
+            Rfc5423Event.FLAGS_SET,
+            Rfc5423Event.FLAGS_CLEAR
+    ));
+
+    private final List<Policy> policies;
+    private final Class<?>[] handledEventClasses;
+
+    EventPolicyTable(List<Policy> policies) {
+        this.policies = ImmutableList.copyOf(policies);
+        this.handledEventClasses = this.policies.stream()
+                .flatMap(policy -> policy.events.stream())
+                .map(Rfc5423Event::getSource)
+                .distinct()
+                .toArray(Class<?>[]::new);
+    }
+
+    /**
+     * Compiles the table from the "policies" section of the listener configuration.
+     *
+     * @throws IllegalArgumentException if a policy lists an unknown event
+     */
+    static EventPolicyTable fromConfiguration(HierarchicalConfiguration<ImmutableNode> config) {
+        List<HierarchicalConfiguration<ImmutableNode>> policyConfigs = config.configurationsAt("policies.policy");
+
+        if (policyConfigs.isEmpty()) {
+            return new EventPolicyTable(ImmutableList.of(new Policy(WILDCARD, WILDCARD, DEFAULT_EVENTS)));
+        }
+
+        return new EventPolicyTable(policyConfigs.stream()
+                .map(policyConfig -> new Policy(
+                        policyConfig.getString("domain", WILDCARD),
+                        policyConfig.getString("mailbox", WILDCARD),
+                        Arrays.stream(policyConfig.getString("events", "").split("[\\s,]+"))
+                                .filter(name -> !name.isEmpty())
+                                .map(Rfc5423Event::fromName)
+                                .collect(Collectors.toCollection(() -> EnumSet.noneOf(Rfc5423Event.class)))
+                ))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Whether any policy could forward an event of this type.
+     */
+    boolean isHandling(Event event) {
+        for (Class<?> handledEventClass : handledEventClasses) {
+            if (handledEventClass.isInstance(event)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Resolves the events to forward for a given user and mailbox.
+     *
+     * The user's domain is only resolved once a policy restricting it matches the mailbox.
+     *
+     * @return the events of the first matching policy, or an empty set if none matches.
+     */
+    Set<Rfc5423Event> forwardedEvents(Username username, String mailboxName) {
+        String domain = null;
+
+        for (Policy policy : policies) {
+            if (!policy.matchesMailbox(mailboxName)) {
+                continue;
+            }
+
+            if (policy.domain == null) {
+                return policy.events;
+            }
+
+            if (domain == null) {
+                domain = username.getDomainPart().map(Domain::asString).orElse("");
+            }
+
+            if (policy.domain.equals(domain)) {
+                return policy.events;
+            }
+        }
+
+        return Collections.emptySet();
+    }
+
+    @Override
+    public String toString() {
+        return policies.stream().map(Policy::toString).collect(Collectors.joining("; "));
+    }
+
+    static class Policy {
+        /**
+         * Lowercase domain, or null to match any.
+         */
+        private final String domain;
+        /**
+         * Compiled mailbox pattern, or null to match any.
+         */
+        private final Pattern mailbox;
+        private final Set<Rfc5423Event> events;
+
+        Policy(String domain, String mailbox, Set<Rfc5423Event> events) {
+            this.domain = WILDCARD.equals(domain) ? null : Domain.of(domain).asString();
+            this.mailbox = WILDCARD.equals(mailbox) ? null : compileMailboxPattern(mailbox);
+            this.events = Collections.unmodifiableSet(events.isEmpty() ? EnumSet.noneOf(Rfc5423Event.class) : EnumSet.copyOf(events));
+        }
+
+        /**
+         * Turns a mailbox pattern where "*" matches anything into a regular expression.
+         */
+        private static Pattern compileMailboxPattern(String mailbox) {
+            return Pattern.compile(Arrays.stream(mailbox.split("\\*", -1))
+                    .map(Pattern::quote)
+                    .collect(Collectors.joining(".*")));
+        }
+
+        boolean matchesMailbox(String mailboxName) {
+            return mailbox == null || mailbox.matcher(mailboxName).matches();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "domain %s, mailbox %s: %s",
+                    domain == null ? WILDCARD : domain,
+                    mailbox == null ? WILDCARD : mailbox.pattern(),
+                    events.stream().map(Rfc5423Event::getName).collect(Collectors.joining(" "))
+            );
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.james.events.Event;
+import reactor.core.publisher.Mono;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+
+/**
+ * In-memory {@link NotifiedEventStore}, bounded in size and forgetting events after a while.
+ * <p>
+ * Redeliveries happen within minutes of the original delivery,
+ * so an event not seen for an hour is not worth remembering anymore.
+ */
+@Singleton
+public class MemoryNotifiedEventStore implements NotifiedEventStore {
+    public static final int MAX_SIZE = 100_000;
+    public static final Duration RETENTION = Duration.ofHours(1);
+
+    private final Cache<Event.EventId, Boolean> notified = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(RETENTION)
+            .build();
+
+    @Inject
+    public MemoryNotifiedEventStore() {
+    }
+
+    @Override
+    public Mono<Boolean> isNotified(Event.EventId eventId) {
+        return Mono.fromCallable(() -> notified.getIfPresent(eventId) != null);
+    }
+
+    @Override
+    public Mono<Void> markNotified(Event.EventId eventId) {
+        return Mono.fromRunnable(() -> notified.put(eventId, true));
+    }
+}
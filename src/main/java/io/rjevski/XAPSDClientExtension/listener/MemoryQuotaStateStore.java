@@ -0,0 +1,48 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import org.apache.james.mailbox.model.QuotaRoot;
+import reactor.core.publisher.Mono;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory {@link QuotaStateStore}, only remembering roots currently over quota.
+ * <p>
+ * After a restart, the first update of a root that is over quota reports it as crossing again,
+ * and one that got back under in the meantime is never reported.
+ */
+@Singleton
+public class MemoryQuotaStateStore implements QuotaStateStore {
+    private final Set<QuotaRoot> overQuota = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public MemoryQuotaStateStore() {
+    }
+
+    @Override
+    public Mono<Boolean> update(QuotaRoot quotaRoot, boolean overQuota) {
+        return Mono.fromCallable(() -> overQuota ? this.overQuota.add(quotaRoot) : this.overQuota.remove(quotaRoot));
+    }
+}
@@ -0,0 +1,44 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import com.google.inject.ImplementedBy;
+import org.apache.james.events.Event;
+import reactor.core.publisher.Mono;
+
+/**
+ * Remembers which events have already been notified to xapsd,
+ * so that events redelivered by the event bus don't cause duplicate pushes.
+ * <p>
+ * Defaults to {@link MemoryNotifiedEventStore}, which is local to each node.
+ * Deployments with several nodes can bind a shared implementation in a Guice module.
+ */
+@ImplementedBy(MemoryNotifiedEventStore.class)
+public interface NotifiedEventStore {
+    /**
+     * @return whether the event has been marked as notified and hasn't expired since
+     */
+    Mono<Boolean> isNotified(Event.EventId eventId);
+
+    /**
+     * Marks the event as notified, to be called once xapsd acknowledged it.
+     */
+    Mono<Void> markNotified(Event.EventId eventId);
+}
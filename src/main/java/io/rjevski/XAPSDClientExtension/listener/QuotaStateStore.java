@@ -0,0 +1,42 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import com.google.inject.ImplementedBy;
+import org.apache.james.mailbox.model.QuotaRoot;
+import reactor.core.publisher.Mono;
+
+/**
+ * Remembers which quota roots are over quota, so that quota usage updates, which James emits on every change
+ * in usage, only cause a push when a root crosses its quota in either direction.
+ * <p>
+ * Defaults to {@link MemoryQuotaStateStore}, which is local to each node. As group listener deliveries are spread
+ * across nodes, deployments with several nodes should bind a shared implementation in a Guice module,
+ * otherwise crossings may be reported more than once or not at all.
+ */
+@ImplementedBy(MemoryQuotaStateStore.class)
+public interface QuotaStateStore {
+    /**
+     * Records whether the root is over quota, atomically with respect to other updates of the same root.
+     *
+     * @return whether this changed the recorded state, roots never recorded being considered under quota
+     */
+    Mono<Boolean> update(QuotaRoot quotaRoot, boolean overQuota);
+}
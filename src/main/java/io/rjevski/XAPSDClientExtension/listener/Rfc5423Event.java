@@ -0,0 +1,89 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import org.apache.james.events.Event;
+import org.apache.james.mailbox.events.MailboxEvents;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Mailbox events as defined in <a href="https://datatracker.ietf.org/doc/html/rfc5423">RFC5423</a>,
+ * along with the James event they are derived from.
+ * <p>
+ * Only the ones we can derive from James events are listed.
+ */
+enum Rfc5423Event {
+    MESSAGE_NEW("MessageNew", MailboxEvents.Added.class),
+    MESSAGE_APPEND("MessageAppend", MailboxEvents.Added.class),
+    MESSAGE_EXPUNGE("MessageExpunge", MailboxEvents.Expunged.class),
+    FLAGS_SET("FlagsSet", MailboxEvents.FlagsUpdated.class),
+    FLAGS_CLEAR("FlagsClear", MailboxEvents.FlagsUpdated.class),
+    MAILBOX_CREATE("MailboxCreate", MailboxEvents.MailboxAdded.class),
+    MAILBOX_DELETE("MailboxDelete", MailboxEvents.MailboxDeletion.class),
+    MAILBOX_RENAME("MailboxRename", MailboxEvents.MailboxRenamed.class),
+    QUOTA_EXCEED("QuotaExceed", MailboxEvents.QuotaUsageUpdatedEvent.class),
+    QUOTA_WITHIN("QuotaWithin", MailboxEvents.QuotaUsageUpdatedEvent.class);
+
+    private static final Map<String, Rfc5423Event> BY_NAME = Arrays.stream(values())
+            .collect(Collectors.toMap(Rfc5423Event::getName, Function.identity()));
+
+    /**
+     * The name as defined in the RFC, which is also what xapsd expects.
+     */
+    private final String name;
+    /**
+     * The James event this is derived from.
+     */
+    private final Class<? extends Event> source;
+
+    Rfc5423Event(String name, Class<? extends Event> source) {
+        this.name = name;
+        this.source = source;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<? extends Event> getSource() {
+        return source;
+    }
+
+    /**
+     * Looks up an event by its RFC name.
+     *
+     * @throws IllegalArgumentException if the name isn't known
+     */
+    public static Rfc5423Event fromName(String name) {
+        Rfc5423Event event = BY_NAME.get(name);
+
+        if (event == null) {
+            throw new IllegalArgumentException(
+                    String.format("Unknown event %s, expected one of %s.", name, String.join(", ", BY_NAME.keySet()))
+            );
+        }
+
+        return event;
+    }
+}
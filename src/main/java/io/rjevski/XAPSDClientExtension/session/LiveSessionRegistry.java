@@ -0,0 +1,204 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.session;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.james.imap.api.ImapSessionState;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.apache.james.mailbox.model.MailboxId;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Keeps track of which devices currently hold a live IMAP connection, so the listener can skip pushes
+ * for devices that will learn about the change through that connection anyway.
+ * <p>
+ * The IMAP extension binds a device to its session once xapsd accepted its XAPPLEPUSHSERVICE command,
+ * and {@link io.rjevski.XAPSDClientExtension.imap.ApplePushServiceIdleProcessor} reports when sessions enter
+ * and leave IDLE, and when James sends them an IDLE heartbeat. The listener then asks whether every device
+ * known for a user is live on the mailbox an event relates to.
+ * <p>
+ * A session only counts as live while it is in IDLE on that mailbox, and only within a short window after
+ * entering IDLE or the last heartbeat: a client suspended by iOS can leave its connection half-open,
+ * which James won't notice until a TCP error or its own timeout, and during which the session would otherwise
+ * look idle forever. Heartbeats stop once James notices, but writing one doesn't prove the device received it,
+ * so a half-open connection still counts until the kernel gives up retransmitting to it.
+ * Sessions are held weakly and are dropped as soon as they reach the LOGOUT state.
+ * <p>
+ * Note: this only knows about devices that registered through this node,
+ * and xapsd notifies every device registered for a username/mailbox,
+ * so suppression is only correct if all IMAP traffic for a user goes through the same node.
+ */
+@Singleton
+public class LiveSessionRegistry {
+    /**
+     * How long we remember a device after its last XAPPLEPUSHSERVICE command.
+     * A remembered device without a live session prevents suppression, so this errs on the long side;
+     * it is only there to bound memory for devices that never come back, as device tokens rotate.
+     * Devices of a user are pruned whenever one of them registers or the listener looks them up,
+     * and users not seen for that long are dropped altogether.
+     */
+    public static final Duration DEVICE_RETENTION = Duration.ofDays(30);
+
+    private final Cache<String, Map<String, Device>> devicesByUser = CacheBuilder.newBuilder()
+            .expireAfterAccess(DEVICE_RETENTION)
+            .build();
+    /**
+     * When each session currently in IDLE entered it or was last sent a heartbeat.
+     */
+    private final Map<ImapSession, Instant> lastIdleActivity = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Clock clock;
+
+    @Inject
+    public LiveSessionRegistry() {
+        this(Clock.systemUTC());
+    }
+
+    LiveSessionRegistry(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Binds a device to the IMAP session it sent XAPPLEPUSHSERVICE on.
+     *
+     * @param username     username as resolved by the IMAP extension, must match what the listener resolves
+     * @param device_token token as sent by the iOS device
+     */
+    public void bind(String username, String device_token, ImapSession session) {
+        Instant now = clock.instant();
+        Map<String, Device> devices = devicesByUser.asMap().computeIfAbsent(username, key -> new ConcurrentHashMap<>());
+
+        devices.values().removeIf(device -> device.isExpired(now.minus(DEVICE_RETENTION)));
+        devices.computeIfAbsent(device_token, key -> new Device()).bind(session, now);
+    }
+
+    /**
+     * Records that the session entered IDLE.
+     */
+    public void idleStarted(ImapSession session) {
+        lastIdleActivity.put(session, clock.instant());
+    }
+
+    /**
+     * Records that James sent an IDLE heartbeat to the session, if it is still in IDLE.
+     */
+    public void idleHeartbeat(ImapSession session) {
+        lastIdleActivity.computeIfPresent(session, (key, last) -> clock.instant());
+    }
+
+    /**
+     * Records that the session left IDLE.
+     */
+    public void idleEnded(ImapSession session) {
+        lastIdleActivity.remove(session);
+    }
+
+    /**
+     * Whether every device we know of for the user has a session in IDLE on the given mailbox,
+     * which entered IDLE or was sent a heartbeat no longer than the given window ago.
+     * Returns false if we don't know of any device, since xapsd may still have some registered.
+     *
+     * @param username username as resolved by the listener
+     * @param window   how long after entering IDLE or the last heartbeat a session is trusted to still be connected
+     */
+    public boolean allDevicesLive(String username, MailboxId mailboxId, Duration window) {
+        Map<String, Device> devices = devicesByUser.getIfPresent(username);
+
+        if (devices == null) {
+            return false;
+        }
+
+        Instant now = clock.instant();
+        Instant expiry = now.minus(DEVICE_RETENTION);
+        devices.values().removeIf(device -> device.isExpired(expiry));
+
+        if (devices.isEmpty()) {
+            // re-check under the map's lock so we don't drop a device bound concurrently
+            devicesByUser.asMap().computeIfPresent(username, (key, current) -> current.isEmpty() ? null : current);
+            return false;
+        }
+
+        Instant activeAfter = now.minus(window);
+
+        return devices.values().stream().allMatch(device -> device.hasSession(session -> isLiveOn(session, mailboxId, activeAfter)));
+    }
+
+    /**
+     * Devices currently remembered for the user, without pruning them.
+     */
+    @VisibleForTesting
+    int deviceCount(String username) {
+        Map<String, Device> devices = devicesByUser.getIfPresent(username);
+
+        return devices == null ? 0 : devices.size();
+    }
+
+    private boolean isLiveOn(ImapSession session, MailboxId mailboxId, Instant activeAfter) {
+        Instant lastActivity = lastIdleActivity.get(session);
+        SelectedMailbox selected = session.getSelected();
+
+        return lastActivity != null
+                && !lastActivity.isBefore(activeAfter)
+                && session.getState() == ImapSessionState.SELECTED
+                && selected != null
+                && mailboxId.equals(selected.getMailboxId());
+    }
+
+    /**
+     * A device and the sessions it has sent XAPPLEPUSHSERVICE on.
+     * iOS opens several connections per account, hence there can be more than one.
+     */
+    private static class Device {
+        private final Set<ImapSession> sessions = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        private volatile Instant lastSeen = Instant.MIN;
+
+        void bind(ImapSession session, Instant now) {
+            sessions.add(session);
+            lastSeen = now;
+        }
+
+        boolean isExpired(Instant expiry) {
+            synchronized (sessions) {
+                sessions.removeIf(session -> session.getState() == ImapSessionState.LOGOUT);
+
+                return sessions.isEmpty() && lastSeen.isBefore(expiry);
+            }
+        }
+
+        boolean hasSession(Predicate<ImapSession> predicate) {
+            synchronized (sessions) {
+                return sessions.stream().anyMatch(predicate);
+            }
+        }
+    }
+}
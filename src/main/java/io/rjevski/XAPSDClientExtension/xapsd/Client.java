@@ -1,20 +1,94 @@
 package io.rjevski.XAPSDClientExtension.xapsd;
 
 
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.james.metrics.api.Metric;
+import org.apache.james.metrics.api.MetricFactory;
 import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * Client for <a href="https://github.com/freswa/dovecot-xaps-daemon">xapsd</a>'s HTTP API.
+ * <p>
+ * Calls are subscribed to on a dedicated I/O scheduler and their results are published on a dedicated
+ * response scheduler, both bounded, so that a slow xapsd never ties up IMAP or event bus threads.
+ * Calls are rejected with a {@link RejectedExecutionException} once too many are pending,
+ * which is counted by the "xapsd-{name}-saturated" metric.
  */
 public class Client {
+    /**
+     * How long idle scheduler threads are kept around.
+     */
+    private static final int THREAD_TTL_SECONDS = 60;
+
     private final WebClient client;
+    private final String name;
+    private final Scheduler ioScheduler;
+    private final Scheduler responseScheduler;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final MetricFactory metricFactory;
+    private final Metric saturatedMetric;
 
-    public Client(String baseUrl) {
-        this.client = WebClient.create(baseUrl);
+    /**
+     * @param name distinguishes the schedulers and metrics of this client from other ones
+     */
+    public Client(String name, ClientOptions options, MetricFactory metricFactory) {
+        this.client = WebClient.create(options.baseUrl);
+        this.name = name;
+        this.ioScheduler = Schedulers.newBoundedElastic(options.threads, options.queuedTasks, "xapsd-" + name + "-io", THREAD_TTL_SECONDS, true);
+        this.responseScheduler = Schedulers.newBoundedElastic(options.threads, options.queuedTasks, "xapsd-" + name + "-response", THREAD_TTL_SECONDS, true);
+        this.maxInFlight = options.maxInFlight;
+        this.timeout = options.timeout;
+        this.metricFactory = metricFactory;
+        this.saturatedMetric = metricFactory.generate("xapsd-" + name + "-saturated");
+    }
+
+    /**
+     * Runs a call to xapsd on the I/O scheduler and publishes its result on the response scheduler,
+     * rejecting it if too many are already pending.
+     *
+     * @param endpoint used to name the timer metric
+     */
+    @VisibleForTesting
+    <T> Mono<T> dispatch(String endpoint, Mono<T> call) {
+        return Mono.defer(() -> {
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                saturatedMetric.increment();
+
+                return Mono.error(new RejectedExecutionException(
+                        String.format("Too many pending calls to xapsd (%d), rejecting %s", maxInFlight, endpoint)
+                ));
+            }
+
+            return Mono.from(metricFactory.decoratePublisherWithTimerMetric(
+                            "xapsd-" + name + "-" + endpoint,
+                            call.subscribeOn(ioScheduler).timeout(timeout)
+                    ))
+                    .doFinally(signal -> inFlight.decrementAndGet())
+                    .publishOn(responseScheduler)
+                    // the schedulers reject tasks once their queue is full
+                    .doOnError(RejectedExecutionException.class, e -> saturatedMetric.increment());
+        });
+    }
+
+    /**
+     * Calls currently pending, including the ones queued on the I/O scheduler.
+     */
+    @VisibleForTesting
+    int inFlight() {
+        return inFlight.get();
     }
 
     /**
@@ -31,7 +105,7 @@ public class Client {
     public Mono<String> register(String account_id, String device_token, String subtopic, String username, String[] mailboxes) {
         RegisterRequest request = new RegisterRequest(account_id, device_token, subtopic, username, mailboxes);
 
-        return this.client.post().uri("/register").contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromValue(request)).retrieve().bodyToMono(String.class);
+        return dispatch("register", this.client.post().uri("/register").contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromValue(request)).retrieve().bodyToMono(String.class));
     }
 
     /**
@@ -50,6 +124,6 @@ public class Client {
                                      String[] events) {
         NotifyRequest request = new NotifyRequest(username, mailbox, events);
 
-        return this.client.post().uri("/notify").contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromValue(request)).retrieve().bodyToMono(Void.class);
+        return dispatch("notify", this.client.post().uri("/notify").contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromValue(request)).retrieve().bodyToMono(Void.class));
     }
 }
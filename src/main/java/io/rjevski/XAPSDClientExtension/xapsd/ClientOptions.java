@@ -0,0 +1,69 @@
+package io.rjevski.XAPSDClientExtension.xapsd;
+
+import java.time.Duration;
+import java.util.function.BiFunction;
+
+/**
+ * Settings for the xapsd {@link Client}, read from either the IMAP custom properties or the listener configuration.
+ * Both use the same keys, each falling back to the defaults below.
+ */
+public class ClientOptions {
+    /**
+     * Default port as per XAPSD config.
+     */
+    public static final String DEFAULT_BASE_URL = "http://localhost:11619/";
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_QUEUED_TASKS = 1000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 100;
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    public final String baseUrl;
+    /**
+     * Threads of each of the I/O and response schedulers.
+     */
+    public final int threads;
+    /**
+     * Tasks each scheduler may queue once all its threads are busy, beyond which they are rejected.
+     */
+    public final int queuedTasks;
+    /**
+     * Requests to xapsd that may be pending at once, beyond which they are rejected without being sent.
+     */
+    public final int maxInFlight;
+    public final Duration timeout;
+
+    public ClientOptions(String baseUrl, int threads, int queuedTasks, int maxInFlight, Duration timeout) {
+        this.baseUrl = baseUrl;
+        this.threads = threads;
+        this.queuedTasks = queuedTasks;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Reads the options through the given lookup.
+     *
+     * @param lookup returns the value for a key, or the provided default if not set
+     */
+    public static ClientOptions from(BiFunction<String, String, String> lookup) {
+        return new ClientOptions(
+                lookup.apply("xapsd.baseUrl", DEFAULT_BASE_URL),
+                Integer.parseInt(lookup.apply("xapsd.threads", String.valueOf(DEFAULT_THREADS))),
+                Integer.parseInt(lookup.apply("xapsd.queuedTasks", String.valueOf(DEFAULT_QUEUED_TASKS))),
+                Integer.parseInt(lookup.apply("xapsd.maxInFlight", String.valueOf(DEFAULT_MAX_IN_FLIGHT))),
+                Duration.ofMillis(Long.parseLong(lookup.apply("xapsd.timeoutMillis", String.valueOf(DEFAULT_TIMEOUT.toMillis()))))
+        );
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "base URL %s, %d threads, %d queued tasks, %d in-flight requests, timeout %dms",
+                baseUrl,
+                threads,
+                queuedTasks,
+                maxInFlight,
+                timeout.toMillis()
+        );
+    }
+}
@@ -0,0 +1,312 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.imap;
+
+import org.apache.james.imap.api.Tag;
+import org.apache.james.imap.api.display.HumanReadableText;
+import org.apache.james.imap.decode.DecodingException;
+import org.apache.james.imap.decode.ImapRequestLineReader;
+import org.apache.james.imap.decode.ImapRequestStreamLineReader;
+import org.apache.james.imap.message.response.UnpooledStatusResponseFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ApplePushServiceCommandParserTest {
+    private static final Tag TAG = new Tag("A1");
+    private static final String VALID = "aps-version \"2\" aps-account-id \"0715A26B-CA09-4730-A419-793000CA982E\" "
+            + "aps-device-token \"2918390218931890821908309283098109381029309829018310983092892829\" "
+            + "aps-subtopic \"com.apple.mobilemail\" mailboxes (\"INBOX\" \"Notes\")\r\n";
+    /**
+     * Characters with a meaning to the IMAP grammar, plus a few plain ones.
+     * Tabs are left out: the original parser loops forever on one within the mailbox list, see below.
+     */
+    private static final String ALPHABET = " ()\"\\{}*%]\r\n0123456789aps-vrinmlbox2IN{5}";
+    private static final String[] KEYWORDS = {"aps-version", "aps-account-id", "aps-device-token", "aps-subtopic", "mailboxes"};
+    private static final int ITERATIONS = 20_000;
+
+    private final ApplePushServiceCommandParser parser = new ApplePushServiceCommandParser(new UnpooledStatusResponseFactory());
+
+    private static ImapRequestLineReader reader(String line) {
+        return new ImapRequestStreamLineReader(
+                new ByteArrayInputStream(line.getBytes(StandardCharsets.ISO_8859_1)),
+                new ByteArrayOutputStream()
+        );
+    }
+
+    /**
+     * Outcome of parsing a line, comparable between both parsers.
+     */
+    private static String describe(ApplePushServiceImapPackages.ApplePushServiceRequest request) {
+        return String.join("|", "OK", request.getTag().asString(), request.version, request.account_id,
+                request.device_token, request.subtopic, String.join(",", request.mailboxes));
+    }
+
+    private static String describe(Exception e) {
+        return "ERR " + e.getClass().getName() + ": " + e.getMessage();
+    }
+
+    private String parseWithCurrent(String line) {
+        try {
+            return describe((ApplePushServiceImapPackages.ApplePushServiceRequest) parser.decode(reader(line), TAG, null));
+        } catch (Exception e) {
+            return describe(e);
+        }
+    }
+
+    private static String parseWithBaseline(String line) {
+        try {
+            return describe(BaselineParser.decode(reader(line), TAG));
+        } catch (Exception e) {
+            return describe(e);
+        }
+    }
+
+    private void assertSameOutcome(String line) {
+        assertThat(parseWithCurrent(line))
+                .as("parsing %s", line)
+                .isEqualTo(parseWithBaseline(line));
+    }
+
+    @Test
+    void shouldParseValidCommand() throws Exception {
+        ApplePushServiceImapPackages.ApplePushServiceRequest request =
+                (ApplePushServiceImapPackages.ApplePushServiceRequest) parser.decode(reader(VALID), TAG, null);
+
+        assertThat(request.version).isEqualTo("2");
+        assertThat(request.account_id).isEqualTo("0715A26B-CA09-4730-A419-793000CA982E");
+        assertThat(request.device_token).isEqualTo("2918390218931890821908309283098109381029309829018310983092892829");
+        assertThat(request.subtopic).isEqualTo("com.apple.mobilemail");
+        assertThat(request.mailboxes).containsExactly("INBOX", "Notes");
+    }
+
+    @Test
+    void shouldParseEmptyMailboxes() throws Exception {
+        ApplePushServiceImapPackages.ApplePushServiceRequest request = (ApplePushServiceImapPackages.ApplePushServiceRequest)
+                parser.decode(reader("aps-version 2 aps-account-id a aps-device-token d aps-subtopic s mailboxes ()\r\n"), TAG, null);
+
+        assertThat(request.mailboxes).isEmpty();
+    }
+
+    @Test
+    void shouldParseManyMailboxes() throws Exception {
+        ApplePushServiceImapPackages.ApplePushServiceRequest request = (ApplePushServiceImapPackages.ApplePushServiceRequest)
+                parser.decode(reader("aps-version 2 aps-account-id a aps-device-token d aps-subtopic s mailboxes (a b c d e f g inbox)\r\n"), TAG, null);
+
+        assertThat(request.mailboxes).containsExactly("a", "b", "c", "d", "e", "f", "g", "INBOX");
+    }
+
+    @Test
+    void shouldRejectQuoteRightAfterKeyword() {
+        String line = VALID.replace("aps-version \"2\"", "aps-version\"2\"");
+
+        assertThatThrownBy(() -> parser.decode(reader(line), TAG, null))
+                .isInstanceOf(DecodingException.class)
+                .hasMessage("Invalid character: '\"'");
+        assertSameOutcome(line);
+    }
+
+    @Test
+    void shouldRejectParenthesisRightAfterKeyword() {
+        String line = VALID.replace("aps-version \"2\"", "aps-version(\"2\"");
+
+        assertThatThrownBy(() -> parser.decode(reader(line), TAG, null))
+                .isInstanceOf(DecodingException.class);
+        assertSameOutcome(line);
+    }
+
+    @Test
+    void shouldReportWholeWordOnMismatch() {
+        String line = VALID.replace("aps-account-id", "aps-account-identifier");
+
+        assertThatThrownBy(() -> parser.decode(reader(line), TAG, null))
+                .isInstanceOf(DecodingException.class)
+                .hasMessage("Expected aps-account-id, got aps-account-identifier.");
+        assertSameOutcome(line);
+    }
+
+    @Test
+    void shouldReportWholeWordOnDivergingPrefix() {
+        String line = VALID.replace("aps-subtopic", "aps-subject");
+
+        assertThatThrownBy(() -> parser.decode(reader(line), TAG, null))
+                .isInstanceOf(DecodingException.class)
+                .hasMessage("Expected aps-subtopic, got aps-subject.");
+        assertSameOutcome(line);
+    }
+
+    @Test
+    void shouldRejectTabWithinMailboxesInsteadOfLooping() {
+        String line = "aps-version 2 aps-account-id a aps-device-token d aps-subtopic s mailboxes (INBOX\t)\r\n";
+
+        assertThatThrownBy(() -> parser.decode(reader(line), TAG, null))
+                .isInstanceOf(DecodingException.class)
+                .hasMessage("Invalid character: '\t'");
+    }
+
+    @Test
+    void shouldBehaveLikeBaselineOnMutatedCommands() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertSameOutcome(mutate(VALID, random));
+        }
+    }
+
+    @Test
+    void shouldBehaveLikeBaselineOnRandomKeywordSequences() {
+        Random random = new Random(1337);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            StringBuilder line = new StringBuilder();
+            int words = 1 + random.nextInt(8);
+
+            for (int j = 0; j < words; j++) {
+                line.append(random.nextBoolean() ? KEYWORDS[random.nextInt(KEYWORDS.length)] : randomString(random, 1 + random.nextInt(6)));
+                line.append(random.nextInt(4) == 0 ? randomString(random, 1) : " ");
+            }
+
+            assertSameOutcome(line.append("\r\n").toString());
+        }
+    }
+
+    @Test
+    void shouldBehaveLikeBaselineOnRandomGarbage() {
+        Random random = new Random(7);
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertSameOutcome(randomString(random, random.nextInt(40)) + "\r\n");
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Inserts, deletes or replaces a few characters of the line.
+     */
+    private static String mutate(String line, Random random) {
+        StringBuilder builder = new StringBuilder(line);
+        int mutations = 1 + random.nextInt(3);
+
+        for (int i = 0; i < mutations && builder.length() > 0; i++) {
+            int position = random.nextInt(builder.length());
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    builder.insert(position, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    break;
+                case 1:
+                    builder.deleteCharAt(position);
+                    break;
+                default:
+                    builder.setCharAt(position, ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                    break;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * The parser as it was before keywords were matched in place, kept verbatim as a reference.
+     */
+    private static class BaselineParser {
+        private static final String EXPECTED_VERSION = "2";
+
+        private static void consumeAtomAndVerify(ImapRequestLineReader request, String expected) throws DecodingException {
+            String actual = request.atom();
+
+            if (!Objects.equals(actual, expected)) {
+                throw new DecodingException(
+                        HumanReadableText.ILLEGAL_ARGUMENTS, String.format("Expected %s, got %s.", expected, actual)
+                );
+            }
+        }
+
+        private static String[] consumeMailBoxes(ImapRequestLineReader request) throws DecodingException {
+            List<String> mailboxes = new ArrayList<>();
+
+            request.nextWordChar();
+            request.consumeChar('(');
+            request.nextWordChar();
+
+            while (request.nextChar() != ')') {
+                mailboxes.add(request.mailbox());
+                request.nextWordChar();
+            }
+            request.consumeChar(')');
+
+            return mailboxes.toArray(new String[0]);
+        }
+
+        static ApplePushServiceImapPackages.ApplePushServiceRequest decode(ImapRequestLineReader request, Tag tag) throws DecodingException {
+            consumeAtomAndVerify(request, "aps-version");
+
+            String version = request.astring();
+
+            if (!Objects.equals(version, EXPECTED_VERSION)) {
+                throw new DecodingException(
+                        HumanReadableText.ILLEGAL_ARGUMENTS,
+                        String.format("Unknown aps-version %s, expected %s.", version, EXPECTED_VERSION)
+                );
+            }
+
+            consumeAtomAndVerify(request, "aps-account-id");
+            final String account_id = request.astring();
+
+            consumeAtomAndVerify(request, "aps-device-token");
+            final String device_token = request.astring();
+
+            consumeAtomAndVerify(request, "aps-subtopic");
+            final String subtopic = request.astring();
+
+            consumeAtomAndVerify(request, "mailboxes");
+            final String[] mailboxes = consumeMailBoxes(request);
+
+            request.eol();
+
+            return new ApplePushServiceImapPackages.ApplePushServiceRequest(
+                    tag,
+                    version,
+                    account_id,
+                    device_token,
+                    subtopic,
+                    mailboxes
+            );
+        }
+    }
+}
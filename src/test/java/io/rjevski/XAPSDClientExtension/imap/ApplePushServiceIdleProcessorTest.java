@@ -0,0 +1,99 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.imap;
+
+import io.rjevski.XAPSDClientExtension.session.LiveSessionRegistry;
+import org.apache.james.imap.api.ImapConfiguration;
+import org.apache.james.imap.api.ImapSessionState;
+import org.apache.james.imap.api.Tag;
+import org.apache.james.imap.api.process.ImapLineHandler;
+import org.apache.james.imap.api.process.ImapProcessor;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.message.request.IdleRequest;
+import org.apache.james.imap.message.response.UnpooledStatusResponseFactory;
+import org.apache.james.mailbox.MailboxManager;
+import org.apache.james.metrics.api.MetricFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ApplePushServiceIdleProcessorTest {
+    private final LiveSessionRegistry registry = mock(LiveSessionRegistry.class);
+    private final ImapSession session = mock(ImapSession.class);
+    private final ImapProcessor.Responder responder = mock(ImapProcessor.Responder.class);
+    private ImapLineHandler lineHandler;
+
+    @BeforeEach
+    void setUp() {
+        ApplePushServiceIdleProcessor processor = new ApplePushServiceIdleProcessor(
+                mock(MailboxManager.class),
+                new UnpooledStatusResponseFactory(),
+                mock(MetricFactory.class),
+                registry
+        );
+        processor.configure(ImapConfiguration.builder().enableIdle(true).build());
+
+        processor.processRequestReactive(new IdleRequest(new Tag("A1")), session, responder).block();
+
+        ArgumentCaptor<ImapLineHandler> captor = ArgumentCaptor.forClass(ImapLineHandler.class);
+        verify(session).pushLineHandler(captor.capture());
+        lineHandler = captor.getValue();
+    }
+
+    @Test
+    void shouldReportIdleStarted() {
+        verify(registry).idleStarted(session);
+        verify(registry, never()).idleEnded(session);
+    }
+
+    @Test
+    void shouldReportHeartbeats() {
+        ArgumentCaptor<Runnable> heartbeat = ArgumentCaptor.forClass(Runnable.class);
+        verify(session).schedule(heartbeat.capture(), any());
+        when(session.getState()).thenReturn(ImapSessionState.SELECTED);
+
+        heartbeat.getValue().run();
+
+        verify(registry).idleHeartbeat(session);
+        verify(registry, never()).idleEnded(session);
+    }
+
+    @Test
+    void shouldReportIdleEndedOnDone() {
+        lineHandler.onLine(session, "DONE\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        verify(registry).idleEnded(session);
+    }
+
+    @Test
+    void shouldReportIdleEndedOnInvalidContinuation() {
+        lineHandler.onLine(session, "NOOP\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        verify(registry).idleEnded(session);
+    }
+}
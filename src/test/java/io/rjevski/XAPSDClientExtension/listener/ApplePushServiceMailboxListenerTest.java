@@ -0,0 +1,272 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import com.google.common.collect.ImmutableList;
+import com.sun.net.httpserver.HttpServer;
+import io.rjevski.XAPSDClientExtension.session.LiveSessionRegistry;
+import org.apache.commons.configuration2.BaseHierarchicalConfiguration;
+import org.apache.james.core.Username;
+import org.apache.james.events.Event;
+import org.apache.james.mailbox.events.MailboxEvents;
+import org.apache.james.core.quota.QuotaCountLimit;
+import org.apache.james.core.quota.QuotaCountUsage;
+import org.apache.james.core.quota.QuotaSizeLimit;
+import org.apache.james.core.quota.QuotaSizeUsage;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.Quota;
+import org.apache.james.mailbox.model.QuotaRoot;
+import org.apache.james.metrics.api.Metric;
+import org.apache.james.metrics.api.MetricFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class ApplePushServiceMailboxListenerTest {
+    private static final Username USER = Username.of("user@example.com");
+    private static final QuotaRoot QUOTA_ROOT = QuotaRoot.quotaRoot("#private&user@example.com", Optional.empty());
+
+    private final List<String> notifications = new CopyOnWriteArrayList<>();
+    private volatile int xapsdStatus = 200;
+    private final CountDownLatch xapsdHang = new CountDownLatch(1);
+    private volatile boolean xapsdHanging = false;
+    private HttpServer xapsd;
+    private NotifiedEventStore notifiedEventStore;
+    private QuotaStateStore quotaStateStore;
+    private ApplePushServiceMailboxListener listener;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        xapsd = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        xapsd.createContext("/notify", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                notifications.add(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            if (xapsdHanging) {
+                try {
+                    xapsdHang.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(xapsdStatus, -1);
+            exchange.close();
+        });
+        xapsd.setExecutor(Executors.newCachedThreadPool());
+        xapsd.start();
+
+        BaseHierarchicalConfiguration config = new BaseHierarchicalConfiguration();
+        config.addProperty("xapsd.baseUrl", "http://localhost:" + xapsd.getAddress().getPort() + "/");
+        config.addProperty("policies.policy.events", "MessageExpunge FlagsSet FlagsClear QuotaExceed QuotaWithin");
+
+        MetricFactory metricFactory = mock(MetricFactory.class);
+        when(metricFactory.generate(anyString())).thenReturn(mock(Metric.class));
+        when(metricFactory.decoratePublisherWithTimerMetric(anyString(), any()))
+                .thenAnswer(invocation -> invocation.<Publisher<?>>getArgument(1));
+
+        notifiedEventStore = spy(new MemoryNotifiedEventStore());
+        quotaStateStore = spy(new MemoryQuotaStateStore());
+        listener = new ApplePushServiceMailboxListener(config, new LiveSessionRegistry(), notifiedEventStore, quotaStateStore, metricFactory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        xapsdHang.countDown();
+        xapsd.stop(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MailboxEvents.QuotaUsageUpdatedEvent quotaUpdate(boolean overQuota) {
+        MailboxEvents.QuotaUsageUpdatedEvent event = mock(MailboxEvents.QuotaUsageUpdatedEvent.class);
+        Quota<QuotaCountLimit, QuotaCountUsage> countQuota = mock(Quota.class);
+        Quota<QuotaSizeLimit, QuotaSizeUsage> sizeQuota = mock(Quota.class);
+
+        when(countQuota.isOverQuota()).thenReturn(false);
+        when(sizeQuota.isOverQuota()).thenReturn(overQuota);
+        when(event.getEventId()).thenReturn(Event.EventId.random());
+        when(event.getUsername()).thenReturn(USER);
+        when(event.getQuotaRoot()).thenReturn(QUOTA_ROOT);
+        when(event.getCountQuota()).thenReturn(countQuota);
+        when(event.getSizeQuota()).thenReturn(sizeQuota);
+
+        return event;
+    }
+
+    private static MailboxEvents.Expunged expunged(String mailboxName) {
+        MailboxEvents.Expunged event = mock(MailboxEvents.Expunged.class);
+
+        when(event.getEventId()).thenReturn(Event.EventId.random());
+        when(event.getUsername()).thenReturn(USER);
+        when(event.getMailboxPath()).thenReturn(MailboxPath.forUser(USER, mailboxName));
+
+        return event;
+    }
+
+    @Test
+    void shouldNotifyAndMarkTheEvent() {
+        MailboxEvents.Expunged event = expunged("INBOX");
+
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).singleElement().asString()
+                .contains("user@example.com")
+                .contains("INBOX")
+                .contains("MessageExpunge");
+        assertThat(notifiedEventStore.isNotified(event.getEventId()).block()).isTrue();
+    }
+
+    @Test
+    void shouldSkipRedeliveredEvents() {
+        MailboxEvents.Expunged event = expunged("INBOX");
+
+        listener.reactiveEvent(event).block();
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).hasSize(1);
+    }
+
+    @Test
+    void shouldSkipAlreadyNotifiedEventsBeforeLookingAtThem() {
+        MailboxEvents.Expunged event = mock(MailboxEvents.Expunged.class);
+        Event.EventId eventId = Event.EventId.random();
+        when(event.getEventId()).thenReturn(eventId);
+        notifiedEventStore.markNotified(eventId).block();
+
+        listener.reactiveEvent(event).block();
+
+        verify(event, atLeastOnce()).getEventId();
+        verifyNoMoreInteractions(event);
+        assertThat(notifications).isEmpty();
+    }
+
+    @Test
+    void shouldNotMarkEventsXapsdFailedToAcknowledge() {
+        MailboxEvents.Expunged event = expunged("INBOX");
+        xapsdStatus = 500;
+
+        assertThatThrownBy(() -> listener.reactiveEvent(event).block()).isInstanceOf(WebClientResponseException.class);
+        assertThat(notifiedEventStore.isNotified(event.getEventId()).block()).isFalse();
+
+        xapsdStatus = 200;
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).hasSize(2);
+        assertThat(notifiedEventStore.isNotified(event.getEventId()).block()).isTrue();
+    }
+
+    @Test
+    void shouldNotMarkEventsWithNothingToForward() {
+        MailboxEvents.FlagsUpdated event = mock(MailboxEvents.FlagsUpdated.class);
+        when(event.getEventId()).thenReturn(Event.EventId.random());
+        when(event.getUsername()).thenReturn(USER);
+        when(event.getMailboxPath()).thenReturn(MailboxPath.forUser(USER, "INBOX"));
+        when(event.getUpdatedFlags()).thenReturn(ImmutableList.of());
+
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).isEmpty();
+        verify(notifiedEventStore, never()).markNotified(any());
+    }
+
+    @Test
+    void shouldOnlyNotifyQuotaCrossings() {
+        listener.reactiveEvent(quotaUpdate(false)).block();
+        listener.reactiveEvent(quotaUpdate(true)).block();
+        listener.reactiveEvent(quotaUpdate(true)).block();
+        listener.reactiveEvent(quotaUpdate(false)).block();
+        listener.reactiveEvent(quotaUpdate(false)).block();
+
+        assertThat(notifications).hasSize(2);
+        assertThat(notifications.get(0)).contains("QuotaExceed").contains("INBOX");
+        assertThat(notifications.get(1)).contains("QuotaWithin").contains("INBOX");
+    }
+
+    @Test
+    void shouldNotifyQuotaCrossingAgainWhenXapsdFailed() {
+        MailboxEvents.QuotaUsageUpdatedEvent event = quotaUpdate(true);
+        xapsdStatus = 500;
+
+        assertThatThrownBy(() -> listener.reactiveEvent(event).block()).isInstanceOf(WebClientResponseException.class);
+
+        xapsdStatus = 200;
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).hasSize(2).allSatisfy(notification -> assertThat(notification).contains("QuotaExceed"));
+        assertThat(notifiedEventStore.isNotified(event.getEventId()).block()).isTrue();
+    }
+
+    @Test
+    void shouldNotifyQuotaCrossingAgainWhenCancelled() throws Exception {
+        MailboxEvents.QuotaUsageUpdatedEvent event = quotaUpdate(true);
+        xapsdHanging = true;
+
+        Disposable delivery = listener.reactiveEvent(event).subscribe();
+        for (int i = 0; i < 100 && notifications.isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        delivery.dispose();
+
+        xapsdHanging = false;
+        xapsdHang.countDown();
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).hasSize(2).allSatisfy(notification -> assertThat(notification).contains("QuotaExceed"));
+    }
+
+    @Test
+    void shouldNotNotifyQuotaCrossingAgainWhenOnlyMarkingFailed() {
+        MailboxEvents.QuotaUsageUpdatedEvent event = quotaUpdate(true);
+        doReturn(Mono.error(new IllegalStateException("store unavailable"))).when(notifiedEventStore).markNotified(any());
+
+        assertThatThrownBy(() -> listener.reactiveEvent(event).block()).isInstanceOf(IllegalStateException.class);
+        listener.reactiveEvent(event).block();
+
+        assertThat(notifications).hasSize(1);
+        verify(quotaStateStore, never()).update(QUOTA_ROOT, false);
+    }
+}
@@ -0,0 +1,142 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.configuration2.io.FileHandler;
+import org.apache.james.core.Username;
+import org.apache.james.mailbox.events.MailboxEvents;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class EventPolicyTableTest {
+    private static final Username USER = Username.of("user@example.com");
+    private static final Username OTHER_DOMAIN_USER = Username.of("user@example.org");
+    private static final Username LOCAL_USER = Username.of("user");
+
+    private static EventPolicyTable table(String policies) throws ConfigurationException {
+        XMLConfiguration config = new XMLConfiguration();
+        new FileHandler(config).load(new StringReader("<configuration>" + policies + "</configuration>"));
+
+        return EventPolicyTable.fromConfiguration(config);
+    }
+
+    @Test
+    void shouldForwardMessageEventsForEveryMailboxByDefault() throws Exception {
+        EventPolicyTable table = table("");
+
+        assertThat(table.forwardedEvents(USER, "Archive/2024")).containsExactlyInAnyOrder(
+                Rfc5423Event.MESSAGE_NEW,
+                Rfc5423Event.MESSAGE_APPEND,
+                Rfc5423Event.MESSAGE_EXPUNGE,
+                Rfc5423Event.FLAGS_SET,
+                Rfc5423Event.FLAGS_CLEAR
+        );
+        assertThat(table.forwardedEvents(LOCAL_USER, "INBOX")).contains(Rfc5423Event.MESSAGE_NEW);
+    }
+
+    @Test
+    void shouldOnlyHandleEventsForwardedByAPolicy() throws Exception {
+        EventPolicyTable table = table("<policies><policy><events>MessageExpunge</events></policy></policies>");
+
+        assertThat(table.isHandling(mock(MailboxEvents.Expunged.class))).isTrue();
+        assertThat(table.isHandling(mock(MailboxEvents.Added.class))).isFalse();
+        assertThat(table.isHandling(mock(MailboxEvents.QuotaUsageUpdatedEvent.class))).isFalse();
+    }
+
+    @Test
+    void shouldUseTheFirstMatchingPolicy() throws Exception {
+        EventPolicyTable table = table("<policies>"
+                + "<policy><mailbox>INBOX</mailbox><events>MessageNew</events></policy>"
+                + "<policy><events>MessageExpunge</events></policy>"
+                + "<policy><mailbox>INBOX</mailbox><events>FlagsSet</events></policy>"
+                + "</policies>");
+
+        assertThat(table.forwardedEvents(USER, "INBOX")).containsExactly(Rfc5423Event.MESSAGE_NEW);
+        assertThat(table.forwardedEvents(USER, "Sent")).containsExactly(Rfc5423Event.MESSAGE_EXPUNGE);
+    }
+
+    @Test
+    void shouldForwardNothingWhenNoPolicyMatches() throws Exception {
+        EventPolicyTable table = table("<policies>"
+                + "<policy><domain>example.com</domain><events>MessageNew</events></policy>"
+                + "</policies>");
+
+        assertThat(table.forwardedEvents(OTHER_DOMAIN_USER, "INBOX")).isEmpty();
+        assertThat(table.forwardedEvents(LOCAL_USER, "INBOX")).isEmpty();
+    }
+
+    @Test
+    void shouldMatchMailboxWildcards() throws Exception {
+        EventPolicyTable table = table("<policies>"
+                + "<policy><mailbox>Archive/*</mailbox><events>MessageNew</events></policy>"
+                + "<policy><mailbox>*.old</mailbox><events>MessageExpunge</events></policy>"
+                + "</policies>");
+
+        assertThat(table.forwardedEvents(USER, "Archive/2024")).containsExactly(Rfc5423Event.MESSAGE_NEW);
+        assertThat(table.forwardedEvents(USER, "Archive/")).containsExactly(Rfc5423Event.MESSAGE_NEW);
+        assertThat(table.forwardedEvents(USER, "Archive")).isEmpty();
+        assertThat(table.forwardedEvents(USER, "Sent.old")).containsExactly(Rfc5423Event.MESSAGE_EXPUNGE);
+        assertThat(table.forwardedEvents(USER, "Sent.older")).isEmpty();
+    }
+
+    @Test
+    void shouldMatchMailboxNamesLiterally() throws Exception {
+        EventPolicyTable table = table("<policies>"
+                + "<policy><mailbox>Sent.(old)</mailbox><events>MessageNew</events></policy>"
+                + "</policies>");
+
+        assertThat(table.forwardedEvents(USER, "Sent.(old)")).containsExactly(Rfc5423Event.MESSAGE_NEW);
+        assertThat(table.forwardedEvents(USER, "SentX(old)")).isEmpty();
+        assertThat(table.forwardedEvents(USER, "sent.(old)")).isEmpty();
+    }
+
+    @Test
+    void shouldMatchDomainsCaseInsensitively() throws Exception {
+        EventPolicyTable table = table("<policies>"
+                + "<policy><domain>EXAMPLE.com</domain><events>MessageNew</events></policy>"
+                + "<policy><events>MessageExpunge</events></policy>"
+                + "</policies>");
+
+        assertThat(table.forwardedEvents(Username.of("user@Example.COM"), "INBOX")).containsExactly(Rfc5423Event.MESSAGE_NEW);
+        assertThat(table.forwardedEvents(OTHER_DOMAIN_USER, "INBOX")).containsExactly(Rfc5423Event.MESSAGE_EXPUNGE);
+        assertThat(table.forwardedEvents(LOCAL_USER, "INBOX")).containsExactly(Rfc5423Event.MESSAGE_EXPUNGE);
+    }
+
+    @Test
+    void shouldAcceptCommaSeparatedEvents() throws Exception {
+        EventPolicyTable table = table("<policies><policy><events>QuotaExceed, QuotaWithin</events></policy></policies>");
+
+        assertThat(table.forwardedEvents(USER, "INBOX")).containsExactlyInAnyOrder(Rfc5423Event.QUOTA_EXCEED, Rfc5423Event.QUOTA_WITHIN);
+    }
+
+    @Test
+    void shouldRejectUnknownEvents() {
+        assertThatThrownBy(() -> table("<policies><policy><events>MessageNew QuotaChange</events></policy></policies>"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown event QuotaChange");
+    }
+}
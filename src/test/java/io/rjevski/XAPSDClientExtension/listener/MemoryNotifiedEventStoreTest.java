@@ -0,0 +1,53 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import org.apache.james.events.Event;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryNotifiedEventStoreTest {
+    private final MemoryNotifiedEventStore store = new MemoryNotifiedEventStore();
+
+    @Test
+    void shouldNotKnowUnmarkedEvents() {
+        assertThat(store.isNotified(Event.EventId.random()).block()).isFalse();
+    }
+
+    @Test
+    void shouldKnowMarkedEvents() {
+        Event.EventId eventId = Event.EventId.random();
+
+        store.markNotified(eventId).block();
+
+        assertThat(store.isNotified(eventId).block()).isTrue();
+        assertThat(store.isNotified(Event.EventId.random()).block()).isFalse();
+    }
+
+    @Test
+    void shouldOnlyMarkOnSubscription() {
+        Event.EventId eventId = Event.EventId.random();
+
+        store.markNotified(eventId);
+
+        assertThat(store.isNotified(eventId).block()).isFalse();
+    }
+}
@@ -0,0 +1,71 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.listener;
+
+import org.apache.james.mailbox.model.QuotaRoot;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemoryQuotaStateStoreTest {
+    private static final QuotaRoot ROOT = QuotaRoot.quotaRoot("#private&user@example.com", Optional.empty());
+    private static final QuotaRoot OTHER_ROOT = QuotaRoot.quotaRoot("#private&other@example.com", Optional.empty());
+
+    private final MemoryQuotaStateStore store = new MemoryQuotaStateStore();
+
+    @Test
+    void shouldNotChangeWhileUnderQuota() {
+        assertThat(store.update(ROOT, false).block()).isFalse();
+        assertThat(store.update(ROOT, false).block()).isFalse();
+    }
+
+    @Test
+    void shouldChangeOnlyWhenGoingOverQuota() {
+        assertThat(store.update(ROOT, true).block()).isTrue();
+        assertThat(store.update(ROOT, true).block()).isFalse();
+    }
+
+    @Test
+    void shouldChangeOnlyWhenGoingBackUnderQuota() {
+        store.update(ROOT, true).block();
+
+        assertThat(store.update(ROOT, false).block()).isTrue();
+        assertThat(store.update(ROOT, false).block()).isFalse();
+        assertThat(store.update(ROOT, true).block()).isTrue();
+    }
+
+    @Test
+    void shouldTrackRootsSeparately() {
+        store.update(ROOT, true).block();
+
+        assertThat(store.update(OTHER_ROOT, true).block()).isTrue();
+        assertThat(store.update(OTHER_ROOT, false).block()).isTrue();
+        assertThat(store.update(ROOT, true).block()).isFalse();
+    }
+
+    @Test
+    void shouldOnlyUpdateOnSubscription() {
+        store.update(ROOT, true);
+
+        assertThat(store.update(ROOT, true).block()).isTrue();
+    }
+}
@@ -0,0 +1,269 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package io.rjevski.XAPSDClientExtension.session;
+
+import org.apache.james.imap.api.ImapSessionState;
+import org.apache.james.imap.api.process.ImapSession;
+import org.apache.james.imap.api.process.SelectedMailbox;
+import org.apache.james.mailbox.model.MailboxId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LiveSessionRegistryTest {
+    private static final String USER = "user@example.com";
+    private static final Duration WINDOW = Duration.ofSeconds(60);
+
+    private final MailboxId inbox = mock(MailboxId.class);
+    private final MailboxId sent = mock(MailboxId.class);
+    private TestClock clock;
+    private LiveSessionRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        clock = new TestClock(Instant.parse("2026-10-19T10:00:00Z"));
+        registry = new LiveSessionRegistry(clock);
+    }
+
+    private ImapSession sessionSelectedOn(MailboxId mailboxId) {
+        ImapSession session = mock(ImapSession.class);
+        SelectedMailbox selected = mock(SelectedMailbox.class);
+
+        when(selected.getMailboxId()).thenReturn(mailboxId);
+        when(session.getSelected()).thenReturn(selected);
+        when(session.getState()).thenReturn(ImapSessionState.SELECTED);
+
+        return session;
+    }
+
+    @Test
+    void shouldNotBeLiveWithoutDevices() {
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldBeLiveWhenTheOnlyDeviceIsIdlingOnTheMailbox() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isTrue();
+    }
+
+    @Test
+    void shouldNotBeLiveWhenSelectedButNotIdling() {
+        registry.bind(USER, "device", sessionSelectedOn(inbox));
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldNotBeLiveOnceIdleEnded() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+        registry.idleEnded(session);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldNotBeLiveWhenIdlingOnAnotherMailbox() {
+        ImapSession session = sessionSelectedOn(sent);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldNotBeLiveOnceTheWindowElapsed() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+
+        clock.advance(WINDOW.plusSeconds(1));
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldStayLiveWhileHeartbeatsAreSent() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+
+        for (int i = 0; i < 10; i++) {
+            clock.advance(WINDOW.minusSeconds(1));
+            registry.idleHeartbeat(session);
+        }
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isTrue();
+
+        clock.advance(WINDOW.plusSeconds(1));
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldNotBeLiveOnHeartbeatOutsideIdle() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleHeartbeat(session);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+
+        registry.idleStarted(session);
+        registry.idleEnded(session);
+        registry.idleHeartbeat(session);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldBeLiveAgainWhenIdleIsReissued() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+        clock.advance(WINDOW.plusSeconds(1));
+        registry.idleEnded(session);
+        registry.idleStarted(session);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isTrue();
+    }
+
+    @Test
+    void shouldNotBeLiveOnceTheSessionLoggedOut() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+
+        when(session.getState()).thenReturn(ImapSessionState.LOGOUT);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldNotBeLiveWhenAnotherDeviceIsNotConnected() {
+        ImapSession idling = sessionSelectedOn(inbox);
+        registry.bind(USER, "device-1", idling);
+        registry.idleStarted(idling);
+
+        ImapSession gone = sessionSelectedOn(inbox);
+        registry.bind(USER, "device-2", gone);
+        when(gone.getState()).thenReturn(ImapSessionState.LOGOUT);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isFalse();
+    }
+
+    @Test
+    void shouldBeLiveWhenAnyOfTheDeviceSessionsIsIdling() {
+        ImapSession idling = sessionSelectedOn(inbox);
+        ImapSession other = sessionSelectedOn(sent);
+        registry.bind(USER, "device", other);
+        registry.bind(USER, "device", idling);
+        registry.idleStarted(idling);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isTrue();
+    }
+
+    @Test
+    void shouldForgetDisconnectedDevicesAfterRetention() {
+        ImapSession idling = sessionSelectedOn(inbox);
+        ImapSession gone = sessionSelectedOn(inbox);
+        registry.bind(USER, "device-2", gone);
+        when(gone.getState()).thenReturn(ImapSessionState.LOGOUT);
+
+        clock.advance(LiveSessionRegistry.DEVICE_RETENTION.plusSeconds(1));
+        registry.bind(USER, "device-1", idling);
+        registry.idleStarted(idling);
+
+        assertThat(registry.allDevicesLive(USER, inbox, WINDOW)).isTrue();
+    }
+
+    @Test
+    void shouldForgetDisconnectedDevicesAfterRetentionWhenBinding() {
+        for (int i = 0; i < 5; i++) {
+            ImapSession gone = sessionSelectedOn(inbox);
+            registry.bind(USER, "rotated-" + i, gone);
+            when(gone.getState()).thenReturn(ImapSessionState.LOGOUT);
+        }
+
+        clock.advance(LiveSessionRegistry.DEVICE_RETENTION.plusSeconds(1));
+        registry.bind(USER, "device", sessionSelectedOn(inbox));
+
+        assertThat(registry.deviceCount(USER)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRememberConnectedDevicesBeyondRetention() {
+        registry.bind(USER, "connected", sessionSelectedOn(inbox));
+
+        clock.advance(LiveSessionRegistry.DEVICE_RETENTION.plusSeconds(1));
+        registry.bind(USER, "device", sessionSelectedOn(inbox));
+
+        assertThat(registry.deviceCount(USER)).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotBeLiveForOtherUsers() {
+        ImapSession session = sessionSelectedOn(inbox);
+        registry.bind(USER, "device", session);
+        registry.idleStarted(session);
+
+        assertThat(registry.allDevicesLive("other@example.com", inbox, WINDOW)).isFalse();
+    }
+
+    private static class TestClock extends Clock {
+        private Instant now;
+
+        TestClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
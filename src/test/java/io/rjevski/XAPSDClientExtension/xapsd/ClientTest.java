@@ -0,0 +1,127 @@
+package io.rjevski.XAPSDClientExtension.xapsd;
+
+import org.apache.james.metrics.api.Metric;
+import org.apache.james.metrics.api.MetricFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ClientTest {
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final Duration TIMEOUT = Duration.ofMillis(500);
+
+    private final Metric saturatedMetric = mock(Metric.class);
+    private Client client;
+
+    @BeforeEach
+    void setUp() {
+        MetricFactory metricFactory = mock(MetricFactory.class);
+        when(metricFactory.generate(anyString())).thenReturn(saturatedMetric);
+        when(metricFactory.decoratePublisherWithTimerMetric(anyString(), any()))
+                .thenAnswer(invocation -> invocation.<Publisher<?>>getArgument(1));
+
+        client = new Client(
+                "test",
+                new ClientOptions("http://localhost:1/", 2, 10, MAX_IN_FLIGHT, TIMEOUT),
+                metricFactory
+        );
+    }
+
+    /**
+     * Calls are released after their result is handed to the response scheduler, which may lag behind block() returning.
+     */
+    private void awaitInFlight(int expected) throws InterruptedException {
+        for (int i = 0; i < 100 && client.inFlight() != expected; i++) {
+            Thread.sleep(50);
+        }
+
+        assertThat(client.inFlight()).isEqualTo(expected);
+    }
+
+    @Test
+    void shouldReturnTheResultOfTheCall() throws Exception {
+        assertThat(client.dispatch("test", Mono.just("ok")).block()).isEqualTo("ok");
+
+        awaitInFlight(0);
+        verify(saturatedMetric, never()).increment();
+    }
+
+    @Test
+    void shouldRejectCallsBeyondMaxInFlightWithoutSubscribingToThem() throws Exception {
+        Disposable first = client.dispatch("test", Mono.never()).subscribe();
+        Disposable second = client.dispatch("test", Mono.never()).subscribe();
+        awaitInFlight(MAX_IN_FLIGHT);
+
+        AtomicBoolean subscribed = new AtomicBoolean();
+        Mono<String> rejected = client.dispatch("test", Mono.fromCallable(() -> {
+            subscribed.set(true);
+            return "ok";
+        }));
+
+        assertThatThrownBy(rejected::block).isInstanceOf(RejectedExecutionException.class);
+        assertThat(subscribed).isFalse();
+        assertThat(client.inFlight()).isEqualTo(MAX_IN_FLIGHT);
+        verify(saturatedMetric, times(1)).increment();
+
+        first.dispose();
+        second.dispose();
+    }
+
+    @Test
+    void shouldAcceptCallsAgainOnceCompleted() throws Exception {
+        Sinks.One<String> pending = Sinks.one();
+        client.dispatch("test", pending.asMono()).subscribe();
+        client.dispatch("test", pending.asMono()).subscribe();
+        awaitInFlight(MAX_IN_FLIGHT);
+
+        pending.tryEmitValue("ok");
+        awaitInFlight(0);
+
+        assertThat(client.dispatch("test", Mono.just("ok")).block()).isEqualTo("ok");
+    }
+
+    @Test
+    void shouldReleaseFailedCalls() throws Exception {
+        assertThatThrownBy(() -> client.dispatch("test", Mono.error(new IllegalStateException("failed"))).block())
+                .isInstanceOf(IllegalStateException.class);
+
+        awaitInFlight(0);
+        verify(saturatedMetric, never()).increment();
+    }
+
+    @Test
+    void shouldReleaseCancelledCalls() throws Exception {
+        Disposable call = client.dispatch("test", Mono.never()).subscribe();
+        awaitInFlight(1);
+
+        call.dispose();
+
+        awaitInFlight(0);
+    }
+
+    @Test
+    void shouldTimeOutAndReleaseHangingCalls() throws Exception {
+        assertThatThrownBy(() -> client.dispatch("test", Mono.never()).block())
+                .hasCauseInstanceOf(TimeoutException.class);
+
+        awaitInFlight(0);
+    }
+}